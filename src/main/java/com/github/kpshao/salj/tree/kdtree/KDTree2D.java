@@ -1,17 +1,72 @@
 package com.github.kpshao.salj.tree.kdtree;
 
 import java.util.Arrays;
-import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class KDTree2D {
-    private final double[] xPoints;
-    private final double[] yPoints;
-    private int maxDepth = 10;
+    // 读者计数的分条数，以及每条之间间隔的long个数（64字节，避免伪共享）
+    private static final int READER_STRIPES = 16;
+    private static final int STRIPE_PADDING = 8;
 
-    private final Node root;
+    // 隐式布局的最大深度：每向下一层区间长度至少减半，int范围内的路径不超过33层
+    private static final int MAX_PATH = 33;
 
+    private final int maxDepth;
+
+    // 构建引擎，重建时复用
+    private final KDTree2DBuildEngine engine = new KDTree2DBuildEngine();
+
+    // 当前发布的树，查询通过 acquire() 获取
+    private volatile Layout layout;
+
+    // 上一次重建前发布的树，没有查询引用时下一次重建复用它的缓冲区
+    private Layout retired;
+
+    /**
+     * 一次构建的结果：坐标、隐式布局的索引数组和点数
+     * 构建完成后不再修改，通过volatile字段整体发布
+     */
+    private static final class Layout {
+        final double[] xPoints;
+        final double[] yPoints;
+        final int[] indices;
+        final int size;
+
+        // 正在使用该布局的查询数，按线程分条计数，避免所有查询争用同一个原子变量
+        // 同一线程的登记和注销总是落在同一条上，每条的值都不小于该条上仍持有布局的查询数，
+        // 因此各条之和为0时一定没有查询持有该布局（LongAdder的线程可能在两次操作之间换到别的单元，不满足这一点）
+        final AtomicLongArray readers = new AtomicLongArray(READER_STRIPES * STRIPE_PADDING);
+
+        // 按需生成的节点视图，仅供测试和调试使用
+        Node root;
+
+        Layout(double[] xPoints, double[] yPoints, int[] indices, int size) {
+            this.xPoints = xPoints;
+            this.yPoints = yPoints;
+            this.indices = indices;
+            this.size = size;
+        }
+
+        boolean hasReaders() {
+            for (int i = 0; i < READER_STRIPES; i++) {
+                if (readers.get(i * STRIPE_PADDING) != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 获取树的节点视图
+     * 树本身以隐式布局存放在索引数组中，节点视图在首次调用时才生成
+     */
     Node getRoot() {
-        return root;
+        Layout l = layout;
+        if (l.root == null) {
+            l.root = toNode(l, 0, l.size - 1, 0);
+        }
+        return l.root;
     }
 
     static class Node {
@@ -26,245 +81,445 @@ public class KDTree2D {
     }
 
     public KDTree2D(double[] xPoints, double[] yPoints, int maxDepth) {
+        this.maxDepth = maxDepth;
+        rebuild(xPoints, yPoints);
+    }
+
+    /**
+     * 使用新的坐标重建树
+     * 新树构建在另一组缓冲区上，完成后整体发布，重建期间的查询仍然使用旧树。
+     * 上一次被替换下来的缓冲区在容量足够且没有查询引用时直接复用，不再分配新的数组。
+     * @param xPoints x坐标数组
+     * @param yPoints y坐标数组
+     * @throws IllegalArgumentException 当坐标数组为空或长度不相等时抛出
+     */
+    public synchronized void rebuild(double[] xPoints, double[] yPoints) {
         if (xPoints == null || yPoints == null || xPoints.length != yPoints.length) {
             throw new IllegalArgumentException("坐标数组不能为空且长度必须相等");
         }
-        
-        this.xPoints = xPoints.clone();
-        this.yPoints = yPoints.clone();
-        this.maxDepth = maxDepth;
-        
-        int[] indices = new int[xPoints.length];
-        for (int i = 0; i < indices.length; i++) {
+
+        int n = xPoints.length;
+        double[] x, y;
+        int[] indices;
+        if (retired != null && retired.indices.length >= n && !retired.hasReaders()) {
+            x = retired.xPoints;
+            y = retired.yPoints;
+            indices = retired.indices;
+        } else {
+            x = new double[n];
+            y = new double[n];
+            indices = new int[n];
+        }
+        System.arraycopy(xPoints, 0, x, 0, n);
+        System.arraycopy(yPoints, 0, y, 0, n);
+        for (int i = 0; i < n; i++) {
             indices[i] = i;
         }
-        
-        root = buildTree(indices, 0, indices.length - 1, 0);
+
+        engine.build(x, y, indices, n, maxDepth);
+
+        retired = layout;
+        layout = new Layout(x, y, indices, n);
+    }
+
+    /**
+     * 获取当前发布的树并登记为读者，使用完必须调用 release()
+     * 登记后再次确认该树仍是当前发布的树，保证重建不会复用正在被读取的缓冲区
+     */
+    private Layout acquire() {
+        int stripe = readerStripe();
+        while (true) {
+            Layout l = layout;
+            l.readers.incrementAndGet(stripe);
+            if (l == layout) {
+                return l;
+            }
+            l.readers.decrementAndGet(stripe);
+        }
+    }
+
+    private void release(Layout l) {
+        l.readers.decrementAndGet(readerStripe());
+    }
+
+    private static int readerStripe() {
+        return ((int) Thread.currentThread().getId() & (READER_STRIPES - 1)) * STRIPE_PADDING;
     }
-    
-    private Node buildTree(int[] indices, int start, int end, int depth) {
+
+    private Node toNode(Layout l, int start, int end, int depth) {
         if (start > end) {
             return null;
         }
-        
-        // 如果点数小于阈值，直接作为叶子节点
+
         if (depth >= maxDepth - 1) {
-            return new Node(Arrays.copyOfRange(indices, start, end + 1), depth);
+            return new Node(Arrays.copyOfRange(l.indices, start, end + 1), depth);
         }
-        
-        // 根据深度决定使用x还是y坐标进行分割
-        boolean useX = (depth % 2 == 0);
-        
-        // 使用三路划分找到中位数区间
-        int mid = (start + end) / 2;
-        int[] equalRange = quickSelect(indices, start, end, mid, useX);
-        int leftEnd = mid-1;
-        int rightStart = mid + 1;
-        
-        // 创建当前节点，包含所有相等的值
-        // int[] currentIndices = Arrays.copyOfRange(indices, equalRange[0], equalRange[1] + 1);
-        Node node = new Node(new int[]{indices[mid]}, depth);
-        
-        // 递归构建左右子树
-        node.left = buildTree(indices, start, leftEnd, depth + 1);
-        node.right = buildTree(indices, rightStart, end, depth + 1);
-        
+
+        int mid = (start + end) >>> 1;
+        Node node = new Node(new int[]{l.indices[mid]}, depth);
+        node.left = toNode(l, start, mid - 1, depth + 1);
+        node.right = toNode(l, mid + 1, end, depth + 1);
         return node;
     }
-    
+
     /**
-     * 使用三路划分的快速选择算法
-     * @param indices 索引数组
-     * @param start 起始位置
-     * @param end 结束位置
-     * @param k 要找的第k小的元素位置
-     * @param useX true表示使用x坐标比较，false表示使用y坐标比较
-     * @return 返回等于pivot的区间[left, right]
+     * 查找距离目标点(x,y)最近的k个点的索引
+     * @param x 目标点x坐标
+     * @param y 目标点y坐标
+     * @param k 需要返回的最近点数量
+     * @return 返回k个最近点的索引数组，按照距离从近到远排序
+     * @throws IllegalArgumentException 当k <= 0时抛出
      */
-    int[] quickSelect(int[] indices, int start, int end, int k, boolean useX) {
-        while (start <= end) {
-            // 使用三路划分，返回等于pivot的区间[left, right]
-            int[] equalRange = threeWayPartition(indices, start, end, useX);
-            int left = equalRange[0], right = equalRange[1];
-            
-            if (k >= left && k <= right) {
-                // k在等于pivot的区间内，找到目标
-                return equalRange;
-            } else if (k < left) {
-                // 在左半部分继续查找
-                end = left - 1;
-            } else {
-                // 在右半部分继续查找
-                start = right + 1;
-            }
+    public int[] findKNearest(double x, double y, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k必须大于0");
+        }
+
+        Layout l = acquire();
+        try {
+            k = Math.min(k, l.size);
+            return search(l, new SearchState(k), x, y, k);
+        } finally {
+            release(l);
         }
-        return new int[]{start, start};
     }
-    
+
     /**
-     * 三路划分，将数组分成小于、等于、大于pivot三部分
-     * @param indices 索引数组
-     * @param start 起始位置
-     * @param end 结束位置
-     * @param useX true表示使用x坐标比较，false表示使用y坐标比较
-     * @return 返回等于pivot的区间[left, right]
+     * 批量查找每个目标点最近的k个点的索引
+     * 查询先按空间位置（Z序）排序，再在同一个搜索状态上依次执行：
+     * 上一个查询的结果给出第k近距离的上界，搜索从上一个查询的叶子向上找到能完整容纳该上界的最深子树开始，
+     * 而不是每次从根开始；最大堆和路径缓冲区在整批查询之间复用。
+     * @param xs 目标点x坐标数组
+     * @param ys 目标点y坐标数组
+     * @param k 每个目标点需要返回的最近点数量
+     * @return 第i个元素是第i个目标点的结果，与 findKNearest(xs[i], ys[i], k) 相同（距离相等的点之间顺序可能不同）
+     * @throws IllegalArgumentException 当坐标数组为空、长度不相等或k <= 0时抛出
      */
-    private int[] threeWayPartition(int[] indices, int start, int end, boolean useX) {
-        // 选择pivot
-        int mid = (start + end) / 2;
-        int pivotIdx = medianOfThree(indices, start, mid, end, useX);
-        double pivotValue = useX ? xPoints[indices[pivotIdx]] : yPoints[indices[pivotIdx]];
-        
-        // lt: 小于区域的右边界
-        // gt: 大于区域的左边界
-        // i: 当前扫描位置
-        int lt = start, i = start, gt = end;
-        
-        while (i <= gt) {
-            double value = useX ? xPoints[indices[i]] : yPoints[indices[i]];
-            int cmp = Double.compare(value, pivotValue);
-            
-            if (cmp < 0) {
-                // 当前值小于pivot，放入左边
-                swap(indices, lt++, i++);
-            } else if (cmp > 0) {
-                // 当前值大于pivot，放入右边
-                swap(indices, i, gt--);
-            } else {
-                // 当前值等于pivot，保持在中间
-                i++;
+    public int[][] findKNearestBatch(double[] xs, double[] ys, int k) {
+        if (xs == null || ys == null || xs.length != ys.length) {
+            throw new IllegalArgumentException("坐标数组不能为空且长度必须相等");
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("k必须大于0");
+        }
+
+        int[] ks = new int[xs.length];
+        Arrays.fill(ks, k);
+        int[][] results = new int[xs.length][];
+        findKNearestBatch(xs, ys, ks, xs.length, results);
+        return results;
+    }
+
+    /**
+     * 批量查询的内部入口，调用方可以复用自己的输入和输出数组
+     * @param xs 目标点x坐标数组
+     * @param ys 目标点y坐标数组
+     * @param ks 每个查询的k，必须都大于0
+     * @param count 查询数，只处理前count个目标点
+     * @param results 第i个查询的结果写入results[i]
+     */
+    void findKNearestBatch(double[] xs, double[] ys, int[] ks, int count, int[][] results) {
+        if (count == 0) {
+            return;
+        }
+        long[] order = zOrder(xs, ys, count);
+
+        Layout l = acquire();
+        try {
+            int capacity = 0;
+            for (int i = 0; i < count; i++) {
+                capacity = Math.max(capacity, Math.min(ks[i], l.size));
+            }
+            SearchState s = new SearchState(capacity);
+            for (long key : order) {
+                int i = (int) key;
+                results[i] = search(l, s, xs[i], ys[i], Math.min(ks[i], l.size));
             }
+        } finally {
+            release(l);
         }
-        
-        // 返回等于pivot的区间[lt, gt]
-        return new int[]{lt, gt};
     }
-    
+
     /**
-     * 三数取中法选择枢轴值（pivot）
-     * 从数组的起始、中间、结束位置选择三个元素，返回其中值的索引位置
-     * 这种方法可以避免在已经排序或接近排序的数组上出现最差性能
-     * 
-     * @param indices 索引数组
-     * @param a 第一个位置的索引（通常是起始位置）
-     * @param b 第二个位置的索引（通常是中间位置）
-     * @param c 第三个位置的索引（通常是结束位置）
-     * @param useX true表示使用x坐标比较，false表示使用y坐标比较
-     * @return 返回三个值中中值所在的索引位置
+     * 按查询点的包围盒把坐标量化到16位后交错得到Z序键，键放在高32位、查询下标放在低32位，排序后依次取出下标
      */
-    private int medianOfThree(int[] indices, int a, int b, int c, boolean useX) {
-        // 获取三个位置对应的坐标值
-        double va = useX ? xPoints[indices[a]] : yPoints[indices[a]];
-        double vb = useX ? xPoints[indices[b]] : yPoints[indices[b]];
-        double vc = useX ? xPoints[indices[c]] : yPoints[indices[c]];
-        
-        // 通过比较找出三个值中的中值
-        // 使用决策树方法，最多需要3次比较就能找到中值
-        if (va < vb) {
-            if (vb < vc) return b;    // va < vb < vc，中值是vb
-            if (va < vc) return c;    // va < vc <= vb，中值是vc
-            return a;                 // vc <= va < vb，中值是va
-        } else {
-            if (va < vc) return a;    // vb <= va < vc，中值是va
-            if (vb < vc) return c;    // vb < vc <= va，中值是vc
-            return b;                 // vc <= vb <= va，中值是vb
+    private static long[] zOrder(double[] xs, double[] ys, int count) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        double scaleX = maxX > minX ? 0xFFFF / (maxX - minX) : 0;
+        double scaleY = maxY > minY ? 0xFFFF / (maxY - minY) : 0;
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            int qx = (int) ((xs[i] - minX) * scaleX);
+            int qy = (int) ((ys[i] - minY) * scaleY);
+            // 与0x80000000异或，使有符号比较得到无符号顺序
+            int key = (spread(qx) | (spread(qy) << 1)) ^ Integer.MIN_VALUE;
+            order[i] = ((long) key << 32) | i;
         }
+        Arrays.sort(order);
+        return order;
     }
-    
-    private void swap(int[] indices, int i, int j) {
-        int temp = indices[i];
-        indices[i] = indices[j];
-        indices[j] = temp;
+
+    /**
+     * 把16位整数的每一位之间插入一个0位
+     */
+    private static int spread(int v) {
+        v &= 0xFFFF;
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
     }
 
     /**
-     * 查找距离目标点(x,y)最近的k个点的索引
-     * @param x 目标点x坐标
-     * @param y 目标点y坐标
-     * @param k 需要返回的最近点数量
+     * 在搜索状态上执行一次查询
+     * @param k 需要返回的点数，已经截断到不超过点数
      * @return 返回k个最近点的索引数组，按照距离从近到远排序
-     * @throws IllegalArgumentException 当k <= 0时抛出
      */
-    public int[] findKNearest(double x, double y, int k) {
-        if (k <= 0) {
-            throw new IllegalArgumentException("k必须大于0");
+    private int[] search(Layout l, SearchState s, double x, double y, int k) {
+        s.x = x;
+        s.y = y;
+        s.k = k;
+        s.heapSize = 0;
+        s.bound = Double.POSITIVE_INFINITY;
+        if (k == 0) {
+            s.pathLength = 0;
+            s.previousLength = 0;
+            return new int[0];
         }
-        if (k > xPoints.length) {
-            k = xPoints.length;
+
+        int level = 0;
+        if (s.pathLength > 0 && s.previousLength >= k) {
+            // 任意k个不同点中到目标点的最大距离都是第k近距离的上界
+            double bound = 0;
+            for (int i = 0; i < k; i++) {
+                int idx = s.previous[i];
+                bound = Math.max(bound, squareDistance(x, y, l.xPoints[idx], l.yPoints[idx]));
+            }
+            s.bound = bound;
+
+            // 从上一个查询的叶子向上，找到以上界为半径的圆严格落在其包围盒内的最深子树
+            // 子树外的点到目标点的距离都大于上界，因此只需在这棵子树内搜索
+            level = s.pathLength - 1;
+            while (level > 0 && !s.containsBall(level)) {
+                level--;
+            }
         }
-        
-        // 使用优先队列存储k个最近的点，按距离从大到小排序（最大堆）
-        // 队列中存储的是点的索引和到目标点的距离
-        PriorityQueue<int[]> pq = new PriorityQueue<>((a, b) -> {
-            double distA = squareDistance(x, y, xPoints[a[0]], yPoints[a[0]]);
-            double distB = squareDistance(x, y, xPoints[b[0]], yPoints[b[0]]);
-            return Double.compare(distB, distA);  // 最大堆，距离最大的在堆顶
-        });
-        
-        // 递归搜索k个最近的点
-        searchKNearest(root, x, y, k, pq);
-        
-        // 构建结果数组，由于优先队列是最大堆，需要倒序存储以保证结果按距离从近到远排序
-        int[] result = new int[pq.size()];
-        int i = result.length - 1;
-        while (!pq.isEmpty()) {
-            result[i] = pq.poll()[0];
-            i--;
+        if (level == 0) {
+            s.setPath(0, 0, l.size - 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+
+        searchKNearest(l, s, s.pathStart[level], s.pathEnd[level], level,
+                s.pathMinX[level], s.pathMaxX[level], s.pathMinY[level], s.pathMaxY[level], true);
+
+        // 依次弹出堆顶，由于是最大堆，需要倒序存储以保证结果按距离从近到远排序
+        int[] result = new int[s.heapSize];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = s.heapIndex[0];
+            s.pop();
         }
+        System.arraycopy(result, 0, s.previous, 0, result.length);
+        s.previousLength = result.length;
         return result;
     }
 
     /**
      * 递归搜索k个最近的点
-     * @param node 当前节点
-     * @param x 目标点x坐标
-     * @param y 目标点y坐标
-     * @param k 需要查找的点数
-     * @param pq 存储最近k个点的优先队列
+     * @param l 要搜索的树
+     * @param s 搜索状态
+     * @param start 当前子树在索引数组中的起始位置
+     * @param end 当前子树在索引数组中的结束位置
+     * @param depth 当前子树的深度
+     * @param minX 当前子树包围盒的x下界
+     * @param maxX 当前子树包围盒的x上界
+     * @param minY 当前子树包围盒的y下界
+     * @param maxY 当前子树包围盒的y上界
+     * @param onPath 当前子树是否在目标点所在的路径上，路径会记录下来供下一个查询使用
      */
-    private void searchKNearest(Node node, double x, double y, int k, PriorityQueue<int[]> pq) {
-        if (node == null) return;
-        
-        // 根据节点深度决定使用x还是y坐标进行比较
-        boolean useX = (node.depth % 2 == 0);
-        double nodeValue = useX ? xPoints[node.index[0]] : yPoints[node.index[0]];
-        double searchValue = useX ? x : y;
-        
-        // 处理当前节点中的所有点
-        for (int idx : node.index) {
-            double dist = squareDistance(x, y, xPoints[idx], yPoints[idx]);
-            
-            // 如果队列未满或当前点比队列中最远的点更近，则更新队列
-            if (pq.size() < k) {
-                pq.offer(new int[]{idx});
-            } else {
-                assert pq.peek() != null;
-                if (dist < squareDistance(x, y, xPoints[pq.peek()[0]], yPoints[pq.peek()[0]])) {
-                    pq.poll();  // 移除最远的点
-                    pq.offer(new int[]{idx});  // 添加当前点
-                }
-            }
+    private void searchKNearest(Layout l, SearchState s, int start, int end, int depth,
+                                double minX, double maxX, double minY, double maxY, boolean onPath) {
+        if (start > end) return;
+        if (onPath) {
+            s.setPath(depth, start, end, minX, maxX, minY, maxY);
         }
         
-        // 如果是叶子节点，直接返回
-        if (node.left == null && node.right == null) {
+        // 如果是叶子节点，处理区间内所有点后直接返回
+        if (depth >= maxDepth - 1) {
+            for (int i = start; i <= end; i++) {
+                offer(l, s, l.indices[i]);
+            }
             return;
         }
         
-        // 决定先搜索哪个子树
-        Node first = searchValue < nodeValue ? node.left : node.right;
-        Node second = searchValue < nodeValue ? node.right : node.left;
+        // 根据节点深度决定使用x还是y坐标进行比较
+        boolean useX = (depth % 2 == 0);
+        int mid = (start + end) >>> 1;
+        double nodeValue = useX ? l.xPoints[l.indices[mid]] : l.yPoints[l.indices[mid]];
+        double searchValue = useX ? s.x : s.y;
+        
+        // 处理当前节点
+        offer(l, s, l.indices[mid]);
+        
+        // 左子树的上界和右子树的下界收缩到分割值
+        double leftMaxX = useX ? nodeValue : maxX;
+        double leftMaxY = useX ? maxY : nodeValue;
+        double rightMinX = useX ? nodeValue : minX;
+        double rightMinY = useX ? minY : nodeValue;
         
         // 递归搜索更可能包含近邻的子树
-        searchKNearest(first, x, y, k, pq);
+        boolean goLeft = searchValue < nodeValue;
+        if (goLeft) {
+            searchKNearest(l, s, start, mid - 1, depth + 1, minX, leftMaxX, minY, leftMaxY, onPath);
+        } else {
+            searchKNearest(l, s, mid + 1, end, depth + 1, rightMinX, maxX, rightMinY, maxY, onPath);
+        }
         
         // 判断是否需要搜索另一个子树
-        // 计算查询点到分割线的距离
-        double splitDist = useX ? (x - nodeValue) * (x - nodeValue) : (y - nodeValue) * (y - nodeValue);
-        
-        // 如果队列未满，或者到分割线的距离小于等于当前k个点中的最大距离，则需要搜索另一个子树
-        if (pq.size() < k || splitDist <= squareDistance(x, y, xPoints[pq.peek()[0]], yPoints[pq.peek()[0]])) {
-            searchKNearest(second, x, y, k, pq);
+        // 计算查询点到分割线的距离，小于等于当前第k近距离时才需要搜索
+        double splitDist = (searchValue - nodeValue) * (searchValue - nodeValue);
+        if (splitDist <= s.threshold()) {
+            if (goLeft) {
+                searchKNearest(l, s, mid + 1, end, depth + 1, rightMinX, maxX, rightMinY, maxY, false);
+            } else {
+                searchKNearest(l, s, start, mid - 1, depth + 1, minX, leftMaxX, minY, leftMaxY, false);
+            }
+        }
+    }
+
+    /**
+     * 如果堆未满或当前点比堆顶的点更近，则更新堆
+     * 超出上界的点不可能是k近邻，直接跳过
+     */
+    private void offer(Layout l, SearchState s, int idx) {
+        double dist = squareDistance(s.x, s.y, l.xPoints[idx], l.yPoints[idx]);
+        if (dist > s.bound) {
+            return;
+        }
+        if (s.heapSize < s.k) {
+            s.push(idx, dist);
+        } else if (dist < s.heapDist[0]) {
+            s.replaceTop(idx, dist);
+        }
+    }
+
+    /**
+     * 一次或一批查询共用的搜索状态
+     * 包括按距离平方组织的最大堆、上一个查询的搜索路径和结果，批量查询在同一个状态上依次执行
+     */
+    private static final class SearchState {
+        double x, y;
+        int k;
+        // 第k近距离平方的已知上界，超出上界的点和子树直接跳过
+        double bound;
+
+        // 最大堆，堆顶是当前第k近的点
+        final int[] heapIndex;
+        final double[] heapDist;
+        int heapSize;
+
+        // 上一个查询从根到叶子的路径：每层子树的区间和包围盒
+        final int[] pathStart = new int[MAX_PATH];
+        final int[] pathEnd = new int[MAX_PATH];
+        final double[] pathMinX = new double[MAX_PATH];
+        final double[] pathMaxX = new double[MAX_PATH];
+        final double[] pathMinY = new double[MAX_PATH];
+        final double[] pathMaxY = new double[MAX_PATH];
+        int pathLength;
+
+        // 上一个查询的结果，按距离从近到远排序
+        final int[] previous;
+        int previousLength;
+
+        SearchState(int capacity) {
+            heapIndex = new int[capacity];
+            heapDist = new double[capacity];
+            previous = new int[capacity];
+        }
+
+        void setPath(int depth, int start, int end, double minX, double maxX, double minY, double maxY) {
+            pathStart[depth] = start;
+            pathEnd[depth] = end;
+            pathMinX[depth] = minX;
+            pathMaxX[depth] = maxX;
+            pathMinY[depth] = minY;
+            pathMaxY[depth] = maxY;
+            pathLength = depth + 1;
+        }
+
+        /**
+         * 以上界为半径、目标点为圆心的圆是否严格落在路径第level层子树的包围盒内
+         * 分割值相等的点可能分在两侧，因此要求到每条边的距离都严格大于半径
+         */
+        boolean containsBall(int level) {
+            return fartherThanBound(x - pathMinX[level]) && fartherThanBound(pathMaxX[level] - x)
+                    && fartherThanBound(y - pathMinY[level]) && fartherThanBound(pathMaxY[level] - y);
+        }
+
+        private boolean fartherThanBound(double d) {
+            return d > 0 && d * d > bound;
+        }
+
+        /**
+         * 搜索另一个子树的距离平方阈值：堆未满时为上界，堆满后为上界与堆顶距离的较小值
+         */
+        double threshold() {
+            return heapSize < k ? bound : Math.min(bound, heapDist[0]);
+        }
+
+        void push(int idx, double dist) {
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapDist[parent] >= dist) {
+                    break;
+                }
+                heapIndex[i] = heapIndex[parent];
+                heapDist[i] = heapDist[parent];
+                i = parent;
+            }
+            heapIndex[i] = idx;
+            heapDist[i] = dist;
+        }
+
+        void replaceTop(int idx, double dist) {
+            siftDown(idx, dist);
+        }
+
+        void pop() {
+            heapSize--;
+            if (heapSize > 0) {
+                siftDown(heapIndex[heapSize], heapDist[heapSize]);
+            }
+        }
+
+        private void siftDown(int idx, double dist) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapDist[child + 1] > heapDist[child]) {
+                    child++;
+                }
+                if (heapDist[child] <= dist) {
+                    break;
+                }
+                heapIndex[i] = heapIndex[child];
+                heapDist[i] = heapDist[child];
+                i = child;
+            }
+            heapIndex[i] = idx;
+            heapDist[i] = dist;
         }
     }
 
@@ -276,7 +531,7 @@ public class KDTree2D {
      * @param y2 第二个点的y坐标
      * @return 两点间距离的平方
      */
-    private double squareDistance(double x1, double y1, double x2, double y2) {
+    private static double squareDistance(double x1, double y1, double x2, double y2) {
         double dx = x1 - x2;
         double dy = y1 - y2;
         return dx * dx + dy * dy;
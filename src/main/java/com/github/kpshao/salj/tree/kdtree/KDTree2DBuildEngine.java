@@ -0,0 +1,190 @@
+package com.github.kpshao.salj.tree.kdtree;
+
+/**
+ * KD树构建引擎
+ * 在索引数组上原地完成中位数划分，构建过程中不分配任何对象。
+ * 构建结果是隐式布局：区间[start, end]的分割点位于 (start + end) / 2，
+ * 左子树为[start, mid - 1]，右子树为[mid + 1, end]，达到最大深度的区间整体作为叶子。
+ *
+ * 选择算法为内省选择（introselect）：先使用三数取中的快速选择，
+ * 每两轮划分检查一次进展，剩余区间没有缩小到3/4以下时，就在本次选择的剩余部分改用五分组中位数（median-of-medians）。
+ * 快速选择阶段每两轮至少缩小1/4，不超过 SMALL_RANGE 的区间代价为常数，回退阶段本身是线性的，因此每次选择最坏为线性时间，
+ * 每层的选择总计 O(n)，整棵树的构建最坏为 O(n log n)。
+ *
+ * 引擎保存最近一次三路划分的结果，因此不是线程安全的，同一时刻只能服务一棵树。
+ */
+final class KDTree2DBuildEngine {
+    // 不检查划分进展的区间长度上限，小区间上的回退得不偿失
+    private static final int SMALL_RANGE = 64;
+
+    private double[] xPoints;
+    private double[] yPoints;
+    private int maxDepth;
+
+    // 最近一次选择/划分得到的等于pivot的区间[lt, gt]
+    private int lt;
+    private int gt;
+
+    /**
+     * 在indices[0, size)上原地构建隐式KD树
+     * @param xPoints x坐标数组
+     * @param yPoints y坐标数组
+     * @param indices 索引数组，构建完成后即为树的隐式布局
+     * @param size 有效点数
+     * @param maxDepth 最大深度
+     */
+    void build(double[] xPoints, double[] yPoints, int[] indices, int size, int maxDepth) {
+        this.xPoints = xPoints;
+        this.yPoints = yPoints;
+        this.maxDepth = maxDepth;
+        buildRange(indices, 0, size - 1, 0);
+    }
+
+    private void buildRange(int[] indices, int start, int end, int depth) {
+        // 右子树用循环处理，递归深度只取决于左子树
+        while (start < end && depth < maxDepth - 1) {
+            int mid = (start + end) >>> 1;
+            introSelect(indices, start, end, mid, depth % 2 == 0);
+            buildRange(indices, start, mid - 1, depth + 1);
+            start = mid + 1;
+            depth++;
+        }
+    }
+
+    /**
+     * 内省选择：三数取中的快速选择，每两轮划分后区间没有缩小到3/4以下时改用五分组中位数完成选择
+     */
+    private void introSelect(int[] indices, int start, int end, int k, boolean useX) {
+        int checkpoint = end - start + 1;
+        int rounds = 0;
+        while (start < end) {
+            int mid = (start + end) >>> 1;
+            double pivotValue = value(indices[medianOfThree(indices, start, mid, end, useX)], useX);
+            threeWayPartition(indices, start, end, pivotValue, useX);
+
+            if (k < lt) {
+                end = lt - 1;
+            } else if (k > gt) {
+                start = gt + 1;
+            } else {
+                return;
+            }
+
+            if (++rounds % 2 == 0) {
+                int length = end - start + 1;
+                if (length > SMALL_RANGE && length > checkpoint - checkpoint / 4) {
+                    selectByMedianOfMedians(indices, start, end, k, useX);
+                    return;
+                }
+                checkpoint = length;
+            }
+        }
+        lt = gt = k;
+    }
+
+    /**
+     * 只使用五分组中位数作为pivot的选择，最坏情况线性时间
+     */
+    private void selectByMedianOfMedians(int[] indices, int start, int end, int k, boolean useX) {
+        while (start < end) {
+            threeWayPartition(indices, start, end, medianOfMedians(indices, start, end, useX), useX);
+
+            if (k < lt) {
+                end = lt - 1;
+            } else if (k > gt) {
+                start = gt + 1;
+            } else {
+                return;
+            }
+        }
+        lt = gt = k;
+    }
+
+    /**
+     * 五分组中位数：每组5个元素插入排序后取中值，并把各组中值依次换到区间头部，
+     * 再在这些中值上递归选择中位数作为pivot值
+     * @return pivot的坐标值
+     */
+    private double medianOfMedians(int[] indices, int start, int end, boolean useX) {
+        if (end - start < 5) {
+            insertionSort(indices, start, end, useX);
+            return value(indices[(start + end) >>> 1], useX);
+        }
+
+        int medians = start;
+        for (int groupStart = start; groupStart <= end; groupStart += 5) {
+            int groupEnd = Math.min(groupStart + 4, end);
+            insertionSort(indices, groupStart, groupEnd, useX);
+            swap(indices, medians++, (groupStart + groupEnd) >>> 1);
+        }
+
+        int mid = (start + medians - 1) >>> 1;
+        selectByMedianOfMedians(indices, start, medians - 1, mid, useX);
+        return value(indices[mid], useX);
+    }
+
+    /**
+     * 三路划分，划分后[start, lt)小于pivot，[lt, gt]等于pivot，(gt, end]大于pivot
+     */
+    private void threeWayPartition(int[] indices, int start, int end, double pivotValue, boolean useX) {
+        int lt = start, i = start, gt = end;
+
+        while (i <= gt) {
+            int cmp = Double.compare(value(indices[i], useX), pivotValue);
+
+            if (cmp < 0) {
+                swap(indices, lt++, i++);
+            } else if (cmp > 0) {
+                swap(indices, i, gt--);
+            } else {
+                i++;
+            }
+        }
+
+        this.lt = lt;
+        this.gt = gt;
+    }
+
+    /**
+     * 三数取中法选择枢轴值（pivot）
+     * @return 返回三个值中中值所在的索引位置
+     */
+    private int medianOfThree(int[] indices, int a, int b, int c, boolean useX) {
+        double va = value(indices[a], useX);
+        double vb = value(indices[b], useX);
+        double vc = value(indices[c], useX);
+
+        if (va < vb) {
+            if (vb < vc) return b;
+            if (va < vc) return c;
+            return a;
+        } else {
+            if (va < vc) return a;
+            if (vb < vc) return c;
+            return b;
+        }
+    }
+
+    private void insertionSort(int[] indices, int start, int end, boolean useX) {
+        for (int i = start + 1; i <= end; i++) {
+            int current = indices[i];
+            double currentValue = value(current, useX);
+            int j = i - 1;
+            while (j >= start && Double.compare(value(indices[j], useX), currentValue) > 0) {
+                indices[j + 1] = indices[j];
+                j--;
+            }
+            indices[j + 1] = current;
+        }
+    }
+
+    private double value(int index, boolean useX) {
+        return useX ? xPoints[index] : yPoints[index];
+    }
+
+    private void swap(int[] indices, int i, int j) {
+        int temp = indices[i];
+        indices[i] = indices[j];
+        indices[j] = temp;
+    }
+}
@@ -0,0 +1,352 @@
+package com.github.kpshao.salj.tree.kdtree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * KD树查询调度器
+ * 把并发提交的单点k近邻查询合并成批次，通过 {@link KDTree2D#findKNearestBatch(double[], double[], int)}
+ * 的批量路径执行：批次内的查询按空间位置排序，共用一个搜索状态，相邻查询从上一个查询的路径而不是从根开始搜索。
+ *
+ * 工作线程轮流收集批次：同一时刻只有一个工作线程持有收集锁，它从队列中批量取出查询，
+ * 收集窗口结束后释放锁并执行这一批，下一个工作线程随即开始收集下一批。
+ * 每个批次只由一个工作线程完整执行，不会被拆散。
+ *
+ * 延迟与吞吐的权衡通过三个参数调节：
+ * 工作线程数、单个批次的最大查询数，以及批次收集窗口（第一个查询到达后最多等待多久再执行）。
+ * 窗口为0时只合并已经在队列中的查询，不额外增加延迟。
+ *
+ * 查询结果在工作线程上完成，非异步的回调也在工作线程上执行。
+ */
+public class KDTree2DQueryScheduler implements AutoCloseable {
+    private final KDTree2D tree;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final ReentrantLock collectLock = new ReentrantLock();
+    private final Thread[] workers;
+    private volatile boolean running = true;
+
+    // 队列统计
+    private final AtomicInteger waitingCount = new AtomicInteger();
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    private static class Request {
+        final double x;
+        final double y;
+        final int k;
+        final long enqueueNanos;
+        final CompletableFuture<int[]> future = new CompletableFuture<>();
+
+        Request(double x, double y, int k) {
+            this.x = x;
+            this.y = y;
+            this.k = k;
+            this.enqueueNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * 工作线程复用的批量查询输入输出缓冲区
+     */
+    private static class BatchBuffers {
+        Request[] requests = new Request[0];
+        double[] xs = new double[0];
+        double[] ys = new double[0];
+        int[] ks = new int[0];
+        int[][] results = new int[0][];
+
+        void ensureCapacity(int size) {
+            if (requests.length < size) {
+                requests = new Request[size];
+                xs = new double[size];
+                ys = new double[size];
+                ks = new int[size];
+                results = new int[size][];
+            }
+        }
+    }
+
+    /**
+     * 使用默认参数创建调度器：工作线程数为可用处理器数，批次最多256个查询，收集窗口50微秒
+     * @param tree 要查询的KD树
+     */
+    public KDTree2DQueryScheduler(KDTree2D tree) {
+        this(tree, Runtime.getRuntime().availableProcessors(), 256, TimeUnit.MICROSECONDS.toNanos(50));
+    }
+
+    /**
+     * @param tree 要查询的KD树
+     * @param workerThreads 工作线程数
+     * @param maxBatchSize 单个批次的最大查询数
+     * @param maxWaitNanos 批次收集窗口，单位纳秒，0表示不等待
+     * @throws IllegalArgumentException 当参数不合法时抛出
+     */
+    public KDTree2DQueryScheduler(KDTree2D tree, int workerThreads, int maxBatchSize, long maxWaitNanos) {
+        if (tree == null) {
+            throw new IllegalArgumentException("KD树不能为空");
+        }
+        if (workerThreads <= 0 || maxBatchSize <= 0 || maxWaitNanos < 0) {
+            throw new IllegalArgumentException("工作线程数和批次大小必须大于0，收集窗口不能小于0");
+        }
+
+        this.tree = tree;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitNanos;
+
+        this.workers = new Thread[workerThreads];
+        for (int i = 0; i < workerThreads; i++) {
+            workers[i] = new Thread(this::runWorker, "kdtree-query-" + i);
+            workers[i].setDaemon(true);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * 异步提交一个k近邻查询
+     * @param x 目标点x坐标
+     * @param y 目标点y坐标
+     * @param k 需要返回的最近点数量
+     * @return 完成时得到k个最近点的索引数组，按照距离从近到远排序；k <= 0时以IllegalArgumentException异常完成
+     * @throws RejectedExecutionException 当调度器已关闭时抛出
+     */
+    public CompletableFuture<int[]> submit(double x, double y, int k) {
+        if (!running) {
+            throw new RejectedExecutionException("调度器已关闭");
+        }
+        Request request = new Request(x, y, k);
+        submittedCount.incrementAndGet();
+        waitingCount.incrementAndGet();
+        requests.add(request);
+        // 与close并发时，队列可能已经被清空，此时由提交方自行拒绝
+        if (!running && requests.remove(request)) {
+            submittedCount.decrementAndGet();
+            waitingCount.decrementAndGet();
+            request.future.completeExceptionally(new RejectedExecutionException("调度器已关闭"));
+        }
+        return request.future;
+    }
+
+    private void runWorker() {
+        List<Request> batch = new ArrayList<>(Math.min(maxBatchSize, 1024));
+        BatchBuffers buffers = new BatchBuffers();
+
+        while (running) {
+            try {
+                collectLock.lockInterruptibly();
+                try {
+                    collectBatch(batch);
+                } finally {
+                    collectLock.unlock();
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    // close中断了收集，已收集的查询不再执行
+                    for (Request request : batch) {
+                        reject(request);
+                    }
+                    return;
+                }
+                // 其他来源的中断不影响调度，已收集的查询照常执行
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            batchCount.incrementAndGet();
+            execute(batch, buffers);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 阻塞等待第一个查询，然后在收集窗口内批量取出后续查询，直到窗口结束或达到最大批次
+     */
+    private void collectBatch(List<Request> batch) throws InterruptedException {
+        batch.add(requests.take());
+        requests.drainTo(batch, maxBatchSize - batch.size());
+        long deadline = System.nanoTime() + maxWaitNanos;
+
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            Request request = requests.poll(remaining, TimeUnit.NANOSECONDS);
+            if (request == null) {
+                break;
+            }
+            batch.add(request);
+            requests.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    /**
+     * 通过批量路径执行整批查询，统计更新后再完成各个查询
+     */
+    private void execute(List<Request> batch, BatchBuffers buffers) {
+        int size = batch.size();
+        buffers.ensureCapacity(size);
+        long start = System.nanoTime();
+        waitingCount.addAndGet(-size);
+
+        // k不合法的查询单独以异常完成，其余查询放入批量输入
+        long queueNanos = 0;
+        int count = 0;
+        for (Request request : batch) {
+            queueNanos += start - request.enqueueNanos;
+            if (request.k > 0) {
+                buffers.requests[count] = request;
+                buffers.xs[count] = request.x;
+                buffers.ys[count] = request.y;
+                buffers.ks[count] = request.k;
+                count++;
+            }
+        }
+
+        RuntimeException failure = null;
+        try {
+            tree.findKNearestBatch(buffers.xs, buffers.ys, buffers.ks, count, buffers.results);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        // 统计先于完成查询，回调中读取到的统计已包含整批查询
+        long end = System.nanoTime();
+        long latencyNanos = 0;
+        for (Request request : batch) {
+            latencyNanos += end - request.enqueueNanos;
+        }
+        totalQueueNanos.addAndGet(queueNanos);
+        totalLatencyNanos.addAndGet(latencyNanos);
+        completedCount.addAndGet(size);
+
+        for (Request request : batch) {
+            if (request.k <= 0) {
+                request.future.completeExceptionally(new IllegalArgumentException("k必须大于0"));
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Request request = buffers.requests[i];
+            if (failure != null) {
+                request.future.completeExceptionally(failure);
+            } else {
+                request.future.complete(buffers.results[i]);
+            }
+            buffers.requests[i] = null;
+            buffers.results[i] = null;
+        }
+    }
+
+    private void reject(Request request) {
+        waitingCount.decrementAndGet();
+        request.future.completeExceptionally(new RejectedExecutionException("调度器已关闭"));
+    }
+
+    /**
+     * 关闭调度器，等待工作线程退出，尚未开始执行的查询以RejectedExecutionException异常完成
+     * 可以在查询结果的回调中调用：此时不会等待当前工作线程，它执行完手上的批次后自行退出
+     * 调用线程被中断时仍会等到所有工作线程退出再返回，并保留中断状态
+     */
+    @Override
+    public void close() {
+        running = false;
+        Thread current = Thread.currentThread();
+        for (Thread worker : workers) {
+            if (worker != current) {
+                worker.interrupt();
+            }
+        }
+
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            if (worker == current) {
+                continue;
+            }
+            while (true) {
+                try {
+                    worker.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        // 所有其他工作线程都已退出，队列中剩下的查询不会再被取走
+        Request request;
+        while ((request = requests.poll()) != null) {
+            reject(request);
+        }
+        if (interrupted) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     * @return 已提交但尚未开始执行的查询数
+     */
+    public int getQueueSize() {
+        return waitingCount.get();
+    }
+
+    /**
+     * @return 已提交的查询总数，不包括提交时被拒绝的查询
+     */
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * @return 已执行完成的查询总数
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * @return 已执行的批次数
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * @return 平均每个批次的查询数，尚未执行任何批次时返回0
+     */
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0 : (double) completedCount.get() / batches;
+    }
+
+    /**
+     * @return 查询从提交到所在批次开始执行的平均等待时间，单位纳秒，尚未执行任何查询时返回0
+     */
+    public double getAverageQueueNanos() {
+        long completed = completedCount.get();
+        return completed == 0 ? 0 : (double) totalQueueNanos.get() / completed;
+    }
+
+    /**
+     * @return 查询从提交到得到结果的平均端到端延迟，包括同一批次内其他查询的执行时间，单位纳秒，尚未执行任何查询时返回0
+     */
+    public double getAverageLatencyNanos() {
+        long completed = completedCount.get();
+        return completed == 0 ? 0 : (double) totalLatencyNanos.get() / completed;
+    }
+}
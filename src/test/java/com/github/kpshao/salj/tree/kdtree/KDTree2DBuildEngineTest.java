@@ -0,0 +1,170 @@
+package com.github.kpshao.salj.tree.kdtree;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+class KDTree2DBuildEngineTest {
+
+    /**
+     * 测试基本的中位数划分
+     */
+    @Test
+    void testBuildBasic() {
+        double[] xPoints = {7, 2, 9, 4, 5, 6, 3};
+        double[] yPoints = {1, 2, 3, 4, 5, 6, 7};
+
+        // 最大深度为2时只有根节点做划分
+        int[] indices = build(xPoints, yPoints, 2);
+        int mid = indices.length / 2;
+
+        // 验证结果：中位数应该是5
+        assertEquals(5.0, xPoints[indices[mid]], 0.001);
+        verifyLayout(indices, 0, indices.length - 1, 0, 2, xPoints, yPoints);
+    }
+
+    /**
+     * 测试包含重复值的情况
+     */
+    @Test
+    void testBuildWithDuplicates() {
+        double[] xPoints = {4, 2, 4, 3, 5, 2, 4};
+        double[] yPoints = {1, 2, 3, 4, 5, 6, 7};
+
+        int[] indices = build(xPoints, yPoints, 2);
+        assertEquals(4.0, xPoints[indices[indices.length / 2]], 0.001);
+        verifyLayout(indices, 0, indices.length - 1, 0, 2, xPoints, yPoints);
+    }
+
+    /**
+     * 测试已排序数组的情况
+     */
+    @Test
+    void testBuildWithSortedArray() {
+        double[] xPoints = {1, 2, 3, 4, 5, 6, 7};
+        double[] yPoints = {1, 2, 3, 4, 5, 6, 7};
+
+        int[] indices = build(xPoints, yPoints, 2);
+        assertEquals(4.0, xPoints[indices[indices.length / 2]], 0.001);
+    }
+
+    /**
+     * 测试边界情况
+     */
+    @Test
+    void testBuildEdgeCases() {
+        // 两个元素时分割点是较小的那个
+        double[] xPoints = {2, 1};
+        double[] yPoints = {1, 2};
+        int[] indices = build(xPoints, yPoints, 10);
+        assertEquals(1.0, xPoints[indices[0]], 0.001);
+        assertEquals(2.0, xPoints[indices[1]], 0.001);
+
+        // 空数组
+        assertEquals(0, build(new double[0], new double[0], 10).length);
+    }
+
+    /**
+     * 测试第二层使用y坐标进行划分
+     */
+    @Test
+    void testBuildUsingYCoordinate() {
+        double[] xPoints = {1, 2, 3, 4, 5, 6, 7};
+        double[] yPoints = {7, 3, 5, 1, 6, 2, 4};
+
+        int[] indices = build(xPoints, yPoints, 3);
+
+        // 根节点按x划分
+        assertEquals(4.0, xPoints[indices[3]], 0.001);
+        // 左子树{(1,7), (2,3), (3,5)}按y划分，中位数为5
+        assertEquals(5.0, yPoints[indices[1]], 0.001);
+        // 右子树{(5,6), (6,2), (7,4)}按y划分，中位数为4
+        assertEquals(4.0, yPoints[indices[5]], 0.001);
+        verifyLayout(indices, 0, indices.length - 1, 0, 3, xPoints, yPoints);
+    }
+
+    /**
+     * 测试根节点的分割值与排序结果一致
+     */
+    @Test
+    void testBuildMatchesSort() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            int size = 1 + random.nextInt(500);
+            double[] xPoints = new double[size];
+            for (int i = 0; i < size; i++) {
+                xPoints[i] = random.nextInt(20);
+            }
+            double[] sorted = xPoints.clone();
+            Arrays.sort(sorted);
+
+            int[] indices = build(xPoints, xPoints, 2);
+            int mid = (size - 1) / 2;
+            assertEquals(sorted[mid], xPoints[indices[mid]], 0.001);
+            verifyLayout(indices, 0, size - 1, 0, 2, xPoints, xPoints);
+        }
+    }
+
+    /**
+     * 测试对三数取中不友好的管风琴序列
+     * 没有五分组中位数回退时该输入的构建时间是二次的（400001个点约13秒），有回退时不到1秒
+     */
+    @Test
+    void testBuildOrganPipe() {
+        int size = 400001;
+        double[] xPoints = new double[size];
+        for (int i = 0; i < size; i++) {
+            xPoints[i] = i < size / 2 ? i : size - i;
+        }
+
+        int[] indices = assertTimeout(Duration.ofSeconds(5), () -> build(xPoints, xPoints, 20));
+        verifyLayout(indices, 0, size - 1, 0, 20, xPoints, xPoints);
+    }
+
+    /**
+     * 测试构建结果满足隐式布局的划分性质
+     */
+    @Test
+    void testBuildLayout() {
+        Random random = new Random(1);
+        int size = 5000;
+        double[] xPoints = new double[size];
+        double[] yPoints = new double[size];
+        for (int i = 0; i < size; i++) {
+            xPoints[i] = random.nextInt(100);
+            yPoints[i] = random.nextInt(100);
+        }
+
+        int[] indices = build(xPoints, yPoints, 10);
+        verifyLayout(indices, 0, size - 1, 0, 10, xPoints, yPoints);
+    }
+
+    // 辅助方法：验证区间[start, end]的分割点左侧不大于、右侧不小于分割值
+    private void verifyLayout(int[] indices, int start, int end, int depth, int maxDepth,
+                              double[] xPoints, double[] yPoints) {
+        if (start > end || depth >= maxDepth - 1) return;
+
+        double[] values = depth % 2 == 0 ? xPoints : yPoints;
+        int mid = (start + end) >>> 1;
+        for (int i = start; i < mid; i++) {
+            assertTrue(values[indices[i]] <= values[indices[mid]]);
+        }
+        for (int i = mid + 1; i <= end; i++) {
+            assertTrue(values[indices[i]] >= values[indices[mid]]);
+        }
+        verifyLayout(indices, start, mid - 1, depth + 1, maxDepth, xPoints, yPoints);
+        verifyLayout(indices, mid + 1, end, depth + 1, maxDepth, xPoints, yPoints);
+    }
+
+    // 辅助方法：在恒等排列上构建并返回隐式布局
+    private int[] build(double[] xPoints, double[] yPoints, int maxDepth) {
+        int[] indices = new int[xPoints.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        new KDTree2DBuildEngine().build(xPoints, yPoints, indices, indices.length, maxDepth);
+        return indices;
+    }
+}
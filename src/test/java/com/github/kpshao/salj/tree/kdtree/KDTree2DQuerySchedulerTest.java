@@ -0,0 +1,280 @@
+package com.github.kpshao.salj.tree.kdtree;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+class KDTree2DQuerySchedulerTest {
+
+    /**
+     * 测试并发提交的查询结果与直接查询一致
+     */
+    @Test
+    void testConcurrentSubmit() throws Exception {
+        int size = 10000;
+        double[] xPoints = new double[size];
+        double[] yPoints = new double[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            xPoints[i] = random.nextDouble() * 100;
+            yPoints[i] = random.nextDouble() * 100;
+        }
+        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 20);
+
+        int queries = 2000;
+        double[] qx = new double[queries];
+        double[] qy = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            qx[i] = random.nextDouble() * 100;
+            qy[i] = random.nextDouble() * 100;
+        }
+
+        @SuppressWarnings("unchecked")
+        CompletableFuture<int[]>[] futures = new CompletableFuture[queries];
+        try (KDTree2DQueryScheduler scheduler =
+                     new KDTree2DQueryScheduler(kdTree, 2, 64, TimeUnit.MICROSECONDS.toNanos(100))) {
+            Thread[] clients = new Thread[4];
+            for (int c = 0; c < clients.length; c++) {
+                int offset = c;
+                clients[c] = new Thread(() -> {
+                    for (int i = offset; i < queries; i += clients.length) {
+                        futures[i] = scheduler.submit(qx[i], qy[i], 5);
+                    }
+                });
+                clients[c].start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+
+            for (int i = 0; i < queries; i++) {
+                assertArrayEquals(kdTree.findKNearest(qx[i], qy[i], 5), futures[i].get(5, TimeUnit.SECONDS));
+            }
+
+            // 验证队列统计
+            assertEquals(queries, scheduler.getSubmittedCount());
+            assertEquals(queries, scheduler.getCompletedCount());
+            assertEquals(0, scheduler.getQueueSize());
+            assertTrue(scheduler.getAverageLatencyNanos() >= scheduler.getAverageQueueNanos());
+        }
+    }
+
+    /**
+     * 比较多线程直接查询、批量查询和通过调度器查询的吞吐量
+     * 调度器的客户端以流水线方式每轮提交64个查询后再等待结果
+     */
+    @Test
+    void testSchedulerPerformance() throws Exception {
+        int size = 100000;
+        double[] xPoints = new double[size];
+        double[] yPoints = new double[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            xPoints[i] = random.nextDouble() * 100;
+            yPoints[i] = random.nextDouble() * 100;
+        }
+        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 20);
+
+        int clients = 8;
+        int queries = 160000;
+        double[] qx = new double[queries];
+        double[] qy = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            qx[i] = random.nextDouble() * 100;
+            qy[i] = random.nextDouble() * 100;
+        }
+
+        long start = System.nanoTime();
+        runClients(clients, c -> {
+            for (int i = c; i < queries; i += clients) {
+                assertEquals(8, kdTree.findKNearest(qx[i], qy[i], 8).length);
+            }
+        });
+        System.out.println("direct: " + (long) (queries / ((System.nanoTime() - start) / 1e9)) + " qps");
+
+        start = System.nanoTime();
+        runClients(clients, c -> {
+            int batchSize = 256;
+            for (int offset = c * batchSize; offset < queries; offset += clients * batchSize) {
+                int end = Math.min(offset + batchSize, queries);
+                int[][] results = kdTree.findKNearestBatch(
+                        Arrays.copyOfRange(qx, offset, end), Arrays.copyOfRange(qy, offset, end), 8);
+                assertEquals(8, results[0].length);
+            }
+        });
+        System.out.println("batch: " + (long) (queries / ((System.nanoTime() - start) / 1e9)) + " qps");
+
+        try (KDTree2DQueryScheduler scheduler = new KDTree2DQueryScheduler(kdTree)) {
+            start = System.nanoTime();
+            runClients(clients, c -> {
+                @SuppressWarnings("unchecked")
+                CompletableFuture<int[]>[] pending = new CompletableFuture[64];
+                int count = 0;
+                for (int i = c; i < queries; i += clients) {
+                    pending[count++] = scheduler.submit(qx[i], qy[i], 8);
+                    if (count == pending.length || i + clients >= queries) {
+                        for (int j = 0; j < count; j++) {
+                            assertEquals(8, pending[j].join().length);
+                        }
+                        count = 0;
+                    }
+                }
+            });
+            System.out.println("scheduler: " + (long) (queries / ((System.nanoTime() - start) / 1e9)) + " qps, "
+                    + "average batch " + scheduler.getAverageBatchSize());
+            assertEquals(queries, scheduler.getCompletedCount());
+        }
+    }
+
+    /**
+     * 测试收集窗口内提交的查询被合并成批次
+     */
+    @Test
+    void testRequestsAreBatched() throws Exception {
+        double[] xPoints = {1, 2, 3, 4, 5};
+        double[] yPoints = {5, 4, 3, 2, 1};
+        int queries = 100;
+        @SuppressWarnings("unchecked")
+        CompletableFuture<int[]>[] futures = new CompletableFuture[queries];
+        try (KDTree2DQueryScheduler scheduler = new KDTree2DQueryScheduler(
+                new KDTree2D(xPoints, yPoints, 10), 1, 1000, TimeUnit.MILLISECONDS.toNanos(200))) {
+            for (int i = 0; i < queries; i++) {
+                futures[i] = scheduler.submit(i % 5, i % 7, 2);
+            }
+            for (CompletableFuture<int[]> future : futures) {
+                assertEquals(2, future.get(5, TimeUnit.SECONDS).length);
+            }
+
+            assertTrue(scheduler.getBatchCount() < queries);
+            assertTrue(scheduler.getAverageBatchSize() > 1);
+        }
+    }
+
+    /**
+     * 测试非法的k值以异常完成，且不影响同批次的其他查询
+     */
+    @Test
+    void testInvalidK() throws Exception {
+        double[] xPoints = {1, 2, 3};
+        double[] yPoints = {1, 2, 3};
+        try (KDTree2DQueryScheduler scheduler = new KDTree2DQueryScheduler(new KDTree2D(xPoints, yPoints, 10))) {
+            CompletableFuture<int[]> invalid = scheduler.submit(0, 0, 0);
+            CompletableFuture<int[]> valid = scheduler.submit(0, 0, 1);
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> invalid.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalArgumentException.class, e.getCause());
+            assertArrayEquals(new int[]{0}, valid.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * 测试关闭时尚未执行的查询以RejectedExecutionException异常完成
+     */
+    @Test
+    void testCloseRejectsPending() {
+        double[] xPoints = {1, 2, 3};
+        double[] yPoints = {1, 2, 3};
+        // 收集窗口足够长，关闭前查询不会被执行
+        KDTree2DQueryScheduler scheduler = new KDTree2DQueryScheduler(
+                new KDTree2D(xPoints, yPoints, 10), 1, 1000, TimeUnit.SECONDS.toNanos(60));
+        @SuppressWarnings("unchecked")
+        CompletableFuture<int[]>[] futures = new CompletableFuture[5];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = scheduler.submit(i, i, 1);
+        }
+        scheduler.close();
+
+        for (CompletableFuture<int[]> future : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        }
+        assertEquals(0, scheduler.getQueueSize());
+        assertEquals(0, scheduler.getCompletedCount());
+    }
+
+    /**
+     * 测试调用线程带着中断状态关闭时，仍等待工作线程退出后才拒绝剩余查询，并保留中断状态
+     */
+    @Test
+    void testCloseWhileInterrupted() {
+        double[] xPoints = {1, 2, 3};
+        double[] yPoints = {1, 2, 3};
+        KDTree2DQueryScheduler scheduler = new KDTree2DQueryScheduler(
+                new KDTree2D(xPoints, yPoints, 10), 2, 1000, TimeUnit.SECONDS.toNanos(60));
+        @SuppressWarnings("unchecked")
+        CompletableFuture<int[]>[] futures = new CompletableFuture[5];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = scheduler.submit(i, i, 1);
+        }
+
+        Thread.currentThread().interrupt();
+        try {
+            scheduler.close();
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+
+        for (CompletableFuture<int[]> future : futures) {
+            assertTrue(future.isCompletedExceptionally());
+        }
+        assertEquals(0, scheduler.getQueueSize());
+    }
+
+    /**
+     * 测试在查询结果的回调中关闭调度器不会死锁
+     */
+    @Test
+    void testCloseFromCallback() throws Exception {
+        double[] xPoints = {1, 2, 3};
+        double[] yPoints = {1, 2, 3};
+        KDTree2DQueryScheduler scheduler = new KDTree2DQueryScheduler(new KDTree2D(xPoints, yPoints, 10), 1, 16, 0);
+
+        CompletableFuture<Void> closed = scheduler.submit(0, 0, 1).thenRun(scheduler::close);
+        closed.get(5, TimeUnit.SECONDS);
+        assertThrows(RejectedExecutionException.class, () -> scheduler.submit(0, 0, 1));
+    }
+
+    /**
+     * 测试参数校验和关闭后的提交
+     */
+    @Test
+    void testEdgeCases() {
+        KDTree2D kdTree = new KDTree2D(new double[]{1}, new double[]{1}, 10);
+        assertThrows(IllegalArgumentException.class, () -> new KDTree2DQueryScheduler(null));
+        assertThrows(IllegalArgumentException.class, () -> new KDTree2DQueryScheduler(kdTree, 0, 16, 0));
+        assertThrows(IllegalArgumentException.class, () -> new KDTree2DQueryScheduler(kdTree, 1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new KDTree2DQueryScheduler(kdTree, 1, 16, -1));
+
+        KDTree2DQueryScheduler scheduler = new KDTree2DQueryScheduler(kdTree, 1, 16, 0);
+        scheduler.close();
+        assertThrows(RejectedExecutionException.class, () -> scheduler.submit(0, 0, 1));
+    }
+
+    // 辅助方法：启动clients个客户端线程执行body(客户端编号)并等待结束，任一客户端失败则抛出
+    private void runClients(int clients, IntConsumer body) throws InterruptedException {
+        Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads[c] = new Thread(() -> {
+                try {
+                    body.accept(client);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure[0]);
+    }
+}
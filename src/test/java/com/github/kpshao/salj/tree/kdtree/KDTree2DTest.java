@@ -7,140 +7,6 @@ import java.util.Random;
 
 class KDTree2DTest {
 
-    /**
-     * 测试基本的快速选择功能
-     */
-    @Test
-    void testQuickSelectBasic() {
-        // 准备测试数据
-        double[] xPoints = {7, 2, 9, 4, 5, 6, 3};
-        double[] yPoints = {1, 2, 3, 4, 5, 6, 7};
-        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 10);
-
-        // 创建测试用的indices数组
-        int[] indices = new int[xPoints.length];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = i;
-        }
-
-        // 测试找中位数
-        int mid = indices.length / 2;
-        int[] result = kdTree.quickSelect(indices, 0, indices.length - 1, mid, true);
-
-        // 验证结果：中位数应该是5
-        assertEquals(5.0, xPoints[indices[result[0]]], 0.001);
-
-        // 验证划分是否正确
-        for (int i = 0; i < result[0]; i++) {
-            assertTrue(xPoints[indices[i]] <= xPoints[indices[result[0]]]);
-        }
-        for (int i = result[1] + 1; i < indices.length; i++) {
-            assertTrue(xPoints[indices[i]] >= xPoints[indices[result[0]]]);
-        }
-    }
-
-    /**
-     * 测试包含重复值的情况
-     */
-    @Test
-    void testQuickSelectWithDuplicates() {
-        double[] xPoints = {4, 2, 4, 3, 5, 2, 4};
-        double[] yPoints = {1, 2, 3, 4, 5, 6, 7};
-        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 10);
-
-        int[] indices = new int[xPoints.length];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = i;
-        }
-
-        // 测试找中位数
-        int mid = indices.length / 2;
-        int[] result = kdTree.quickSelect(indices, 0, indices.length - 1, mid, true);
-
-        // 验证结果：应该返回所有5的范围
-        assertEquals(4.0, xPoints[indices[result[0]]], 0.001);
-        assertEquals(4.0, xPoints[indices[result[1]]], 0.001);
-
-        // 验证返回的区间长度（应该有3个5）
-        assertEquals(3, result[1] - result[0] + 1);
-    }
-
-    /**
-     * 测试已排序数组的情况
-     */
-    @Test
-    void testQuickSelectWithSortedArray() {
-        double[] xPoints = {1, 2, 3, 4, 5, 6, 7};
-        double[] yPoints = {1, 2, 3, 4, 5, 6, 7};
-        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 10);
-
-        int[] indices = new int[xPoints.length];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = i;
-        }
-
-        // 测试找中位数
-        int mid = indices.length / 2;
-        int[] result = kdTree.quickSelect(indices, 0, indices.length - 1, mid, true);
-
-        // 验证结果：中位数应该是4
-        assertEquals(4.0, xPoints[indices[result[0]]], 0.001);
-    }
-
-    /**
-     * 测试边界情况
-     */
-    @Test
-    void testQuickSelectEdgeCases() {
-        // 测试只有两个元素的数组
-        double[] xPoints = {2, 1};
-        double[] yPoints = {1, 2};
-        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 10);
-
-        int[] indices = new int[xPoints.length];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = i;
-        }
-
-        // 测试找最小值
-        int[] result = kdTree.quickSelect(indices, 0, indices.length - 1, 0, true);
-        assertEquals(1.0, xPoints[indices[result[0]]], 0.001);
-
-        // 测试找最大值
-        result = kdTree.quickSelect(indices, 0, indices.length - 1, 1, true);
-        assertEquals(2.0, xPoints[indices[result[0]]], 0.001);
-    }
-
-    /**
-     * 测试使用y坐标进行划分
-     */
-    @Test
-    void testQuickSelectUsingYCoordinate() {
-        double[] xPoints = {1, 2, 3, 4, 5};
-        double[] yPoints = {5, 2, 1, 4, 3};
-        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 10);
-
-        int[] indices = new int[yPoints.length];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = i;
-        }
-
-        // 测试找中位数
-        int mid = indices.length / 2;
-        int[] result = kdTree.quickSelect(indices, 0, indices.length - 1, mid, false);
-
-        // 验证结果：y坐标的中位数应该是3
-        assertEquals(3.0, yPoints[indices[result[0]]], 0.001);
-
-        // 验证划分是否正确
-        for (int i = 0; i < result[0]; i++) {
-            assertTrue(yPoints[indices[i]] <= yPoints[indices[result[0]]]);
-        }
-        for (int i = result[1] + 1; i < indices.length; i++) {
-            assertTrue(yPoints[indices[i]] >= yPoints[indices[result[0]]]);
-        }
-    }
-    
     /**
      * 测试基本的KDTree构建
      */
@@ -395,4 +261,240 @@ class KDTree2DTest {
         // 确保搜索时间在合理范围内（根据实际情况调整阈值）
         assertTrue(end - start < 100); // 假设在100ms内完成
     }
-}
\ No newline at end of file
+
+    /**
+     * 测试重建树：复用缓冲区后查询结果与暴力搜索一致
+     */
+    @Test
+    void testRebuild() {
+        Random random = new Random(7);
+        double[] xPoints = new double[1000];
+        double[] yPoints = new double[1000];
+        for (int i = 0; i < xPoints.length; i++) {
+            xPoints[i] = random.nextDouble() * 100;
+            yPoints[i] = random.nextDouble() * 100;
+        }
+        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 8);
+
+        // 用更少的点重建
+        double[] newX = new double[600];
+        double[] newY = new double[600];
+        for (int i = 0; i < newX.length; i++) {
+            newX[i] = random.nextDouble() * 100;
+            newY[i] = random.nextDouble() * 100;
+        }
+        kdTree.rebuild(newX, newY);
+        verifyKDTreeStructure(kdTree.getRoot(), 0, newX, newY);
+        assertNearestMatchesBruteForce(kdTree, newX, newY, 30, 70, 10);
+
+        // k大于点数时按新的点数截断
+        assertEquals(newX.length, kdTree.findKNearest(0, 0, 1000).length);
+
+        // 用更多的点重建，被替换下来的缓冲区容量不足，需要重新分配
+        kdTree.rebuild(xPoints, yPoints);
+        verifyKDTreeStructure(kdTree.getRoot(), 0, xPoints, yPoints);
+        assertNearestMatchesBruteForce(kdTree, xPoints, yPoints, 30, 70, 10);
+
+        assertThrows(IllegalArgumentException.class, () -> kdTree.rebuild(new double[1], new double[2]));
+    }
+
+    /**
+     * 测试重建与查询并发进行时，查询总是看到一棵完整的树
+     */
+    @Test
+    void testRebuildWhileQuerying() throws InterruptedException {
+        Random random = new Random(3);
+        double[][] xs = new double[2][];
+        double[][] ys = new double[2][];
+        for (int v = 0; v < 2; v++) {
+            int size = v == 0 ? 500 : 2000;
+            xs[v] = new double[size];
+            ys[v] = new double[size];
+            for (int i = 0; i < size; i++) {
+                xs[v][i] = random.nextDouble() * 100;
+                ys[v][i] = random.nextDouble() * 100;
+            }
+        }
+        KDTree2D kdTree = new KDTree2D(xs[0], ys[0], 12);
+
+        Throwable[] failure = new Throwable[1];
+        Thread reader = new Thread(() -> {
+            try {
+                for (int i = 0; i < 2000; i++) {
+                    int[] nearest = kdTree.findKNearest(50, 50, 10);
+                    assertEquals(10, nearest.length);
+                    for (int idx : nearest) {
+                        assertTrue(idx >= 0 && idx < 2000);
+                    }
+                }
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        });
+        reader.start();
+        for (int i = 0; reader.isAlive(); i++) {
+            kdTree.rebuild(xs[i % 2], ys[i % 2]);
+        }
+        reader.join();
+        assertNull(failure[0]);
+    }
+
+    /**
+     * 测试多线程并发查询的吞吐量
+     */
+    @Test
+    void testConcurrentQueryPerformance() throws InterruptedException {
+        int size = 100000;
+        double[] xPoints = new double[size];
+        double[] yPoints = new double[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            xPoints[i] = random.nextDouble() * 100;
+            yPoints[i] = random.nextDouble() * 100;
+        }
+        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 20);
+
+        int threads = 8;
+        int queriesPerThread = 20000;
+        Throwable[] failure = new Throwable[1];
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers[t] = new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    for (int i = 0; i < queriesPerThread; i++) {
+                        assertEquals(8, kdTree.findKNearest(r.nextDouble() * 100, r.nextDouble() * 100, 8).length);
+                    }
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println((long) (threads * queriesPerThread / (elapsed / 1e9)) + " qps");
+
+        assertNull(failure[0]);
+    }
+
+    /**
+     * 测试对三数取中不友好的输入：大量重复值、已排序、逆序和管风琴序列
+     */
+    @Test
+    void testAdversarialInputs() {
+        int size = 20000;
+        double[][] xs = new double[4][size];
+        for (int i = 0; i < size; i++) {
+            xs[0][i] = i % 3;
+            xs[1][i] = i;
+            xs[2][i] = size - i;
+            xs[3][i] = i < size / 2 ? i : size - i;
+        }
+        for (double[] xPoints : xs) {
+            double[] yPoints = xPoints.clone();
+            KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 20);
+            verifyKDTreeStructure(kdTree.getRoot(), 0, xPoints, yPoints);
+            assertNearestMatchesBruteForce(kdTree, xPoints, yPoints, size / 3.0, size / 3.0, 5);
+        }
+    }
+
+    /**
+     * 测试批量查询：分散和聚集的目标点结果都与逐个查询一致
+     */
+    @Test
+    void testFindKNearestBatch() {
+        Random random = new Random(11);
+        int size = 5000;
+        double[] xPoints = new double[size];
+        double[] yPoints = new double[size];
+        for (int i = 0; i < size; i++) {
+            xPoints[i] = random.nextDouble() * 100;
+            yPoints[i] = random.nextDouble() * 100;
+        }
+        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 16);
+
+        int queries = 500;
+        double[] xs = new double[queries];
+        double[] ys = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            // 前一半分散在整个区域，后一半聚集在一个小区域内
+            double range = i < queries / 2 ? 110 : 2;
+            xs[i] = 50 + random.nextDouble() * range - range / 2;
+            ys[i] = 50 + random.nextDouble() * range - range / 2;
+        }
+
+        int[][] results = kdTree.findKNearestBatch(xs, ys, 8);
+        assertEquals(queries, results.length);
+        for (int i = 0; i < queries; i++) {
+            assertArrayEquals(kdTree.findKNearest(xs[i], ys[i], 8), results[i]);
+        }
+
+        // k大于点数时返回所有点
+        int[][] all = new KDTree2D(new double[]{1, 2}, new double[]{1, 2}, 10)
+                .findKNearestBatch(new double[]{0, 3}, new double[]{0, 3}, 5);
+        assertArrayEquals(new int[]{0, 1}, all[0]);
+        assertArrayEquals(new int[]{1, 0}, all[1]);
+
+        assertEquals(0, kdTree.findKNearestBatch(new double[0], new double[0], 1).length);
+        assertThrows(IllegalArgumentException.class, () -> kdTree.findKNearestBatch(null, ys, 1));
+        assertThrows(IllegalArgumentException.class, () -> kdTree.findKNearestBatch(xs, new double[1], 1));
+        assertThrows(IllegalArgumentException.class, () -> kdTree.findKNearestBatch(xs, ys, 0));
+    }
+
+    /**
+     * 测试批量查询在大量重复坐标上的正确性
+     */
+    @Test
+    void testFindKNearestBatchWithDuplicates() {
+        int size = 3000;
+        double[] xPoints = new double[size];
+        double[] yPoints = new double[size];
+        for (int i = 0; i < size; i++) {
+            xPoints[i] = i % 10;
+            yPoints[i] = i % 7;
+        }
+        KDTree2D kdTree = new KDTree2D(xPoints, yPoints, 12);
+
+        Random random = new Random(5);
+        double[] xs = new double[200];
+        double[] ys = new double[200];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = random.nextInt(12) - 1;
+            ys[i] = random.nextInt(9) - 1;
+        }
+
+        int[][] results = kdTree.findKNearestBatch(xs, ys, 20);
+        for (int i = 0; i < xs.length; i++) {
+            // 距离相等的点顺序可能不同，只比较距离
+            int[] expected = kdTree.findKNearest(xs[i], ys[i], 20);
+            assertEquals(expected.length, results[i].length);
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(Math.pow(xPoints[expected[j]] - xs[i], 2) + Math.pow(yPoints[expected[j]] - ys[i], 2),
+                        Math.pow(xPoints[results[i][j]] - xs[i], 2) + Math.pow(yPoints[results[i][j]] - ys[i], 2),
+                        0.001);
+            }
+        }
+    }
+
+    // 辅助方法：与暴力搜索比较最近k个点的距离
+    private void assertNearestMatchesBruteForce(KDTree2D kdTree, double[] xPoints, double[] yPoints,
+                                                double x, double y, int k) {
+        int[] nearest = kdTree.findKNearest(x, y, k);
+        double[] allDistances = new double[xPoints.length];
+        for (int i = 0; i < xPoints.length; i++) {
+            allDistances[i] = Math.pow(xPoints[i] - x, 2) + Math.pow(yPoints[i] - y, 2);
+        }
+        Arrays.sort(allDistances);
+
+        assertEquals(k, nearest.length);
+        for (int i = 0; i < k; i++) {
+            double dist = Math.pow(xPoints[nearest[i]] - x, 2) + Math.pow(yPoints[nearest[i]] - y, 2);
+            assertEquals(allDistances[i], dist, 0.001);
+        }
+    }
+}